@@ -1,10 +1,14 @@
 package com.thunken.sandow;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 import org.elasticsearch.action.bulk.BulkProcessor;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
 
 import lombok.NonNull;
 
@@ -50,9 +54,20 @@ public interface BulkProcessingIndex<E, C extends Client> extends Index<E, C> {
 	}
 
 	@Override
-	default boolean remove(@NonNull final String elementId) {
-		if (contains(elementId)) {
-			getBulkProcessor().add(deleteRequest(elementId));
+	default boolean removeIf(@NonNull final QueryBuilder queryBuilder) {
+		final Iterator<SearchHit> searchHits = streamSearchHitsWithoutSource(queryBuilder).iterator();
+		if (!searchHits.hasNext()) {
+			return false;
+		}
+		searchHits.forEachRemaining(
+				searchHit -> getBulkProcessor().add(deleteRequest(searchHit.getId(), getRouting(searchHit))));
+		return true;
+	}
+
+	@Override
+	default boolean remove(@NonNull final String elementId, @Nullable final String routing) {
+		if (contains(elementId, routing)) {
+			getBulkProcessor().add(deleteRequest(elementId, routing));
 			return true;
 		}
 		return false;
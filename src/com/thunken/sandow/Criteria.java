@@ -0,0 +1,176 @@
+package com.thunken.sandow;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A predicate on the elements of an {@code Index} that can be evaluated both locally and by Elasticsearch.
+ *
+ * <p>
+ * A {@code Criteria} pairs a {@code QueryBuilder} with an equivalent {@code Predicate}, so that methods of
+ * {@code Index} such as {@link Index#countMatching(Criteria)}, {@link Index#streamMatching(Criteria)} and
+ * {@link Index#removeIf(Predicate)} can filter elements in the cluster instead of retrieving every element and testing
+ * it locally. Criteria are built from {@linkplain Criteria#field fields} and combined with
+ * {@link Criteria#and(Criteria)}, {@link Criteria#or(Criteria)} and {@link Criteria#negate()}.
+ *
+ * <p>
+ * Field criteria compile to {@code term}, {@code terms}, {@code range} and {@code exists} queries, which only agree
+ * with their local counterparts on fields that are not analyzed, such as {@code keyword}, numeric, date or boolean
+ * fields.
+ *
+ * @param <E>
+ *            the type of elements this criteria applies to
+ *
+ * @see Index
+ * @see QueryBuilder
+ */
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Criteria<E> implements Predicate<E> {
+
+	@NonNull
+	private final Predicate<? super E> predicate;
+
+	/**
+	 * Return the query that matches the same elements as this criteria in Elasticsearch.
+	 *
+	 * @return the query that matches the same elements as this criteria in Elasticsearch
+	 */
+	@Getter
+	@NonNull
+	private final QueryBuilder query;
+
+	public Criteria<E> and(@NonNull final Criteria<E> other) {
+		return new Criteria<>(element -> predicate.test(element) && other.predicate.test(element),
+				QueryBuilders.boolQuery().filter(query).filter(other.query));
+	}
+
+	@Override
+	public Criteria<E> negate() {
+		return new Criteria<>(element -> !predicate.test(element), QueryBuilders.boolQuery().mustNot(query));
+	}
+
+	public Criteria<E> or(@NonNull final Criteria<E> other) {
+		return new Criteria<>(element -> predicate.test(element) || other.predicate.test(element),
+				QueryBuilders.boolQuery().should(query).should(other.query).minimumShouldMatch(1));
+	}
+
+	@Override
+	public boolean test(final E element) {
+		return predicate.test(element);
+	}
+
+	/**
+	 * Return a criteria that matches every element.
+	 *
+	 * @param <E>
+	 *            the type of elements the criteria applies to
+	 * @return a criteria that matches every element
+	 */
+	public static <E> Criteria<E> all() {
+		return new Criteria<>(element -> true, QueryBuilders.matchAllQuery());
+	}
+
+	/**
+	 * Return a field of the elements of an {@code Index}, from which criteria can be built.
+	 *
+	 * @param name
+	 *            the name of the field in Elasticsearch
+	 * @param getter
+	 *            a function that returns the value of the field for a given element
+	 * @param <E>
+	 *            the type of elements the field belongs to
+	 * @param <V>
+	 *            the type of values of the field
+	 * @return a field of the elements of an {@code Index}
+	 */
+	public static <E, V extends Comparable<? super V>> Field<E, V> field(@NonNull final String name,
+			@NonNull final Function<? super E, ? extends V> getter) {
+		return new Field<>(name, getter);
+	}
+
+	/**
+	 * Return a criteria from a query and an equivalent predicate. It is the responsibility of the caller to ensure that
+	 * both match the same elements.
+	 *
+	 * @param query
+	 *            the query that matches the elements in Elasticsearch
+	 * @param predicate
+	 *            the predicate that matches the elements locally
+	 * @param <E>
+	 *            the type of elements the criteria applies to
+	 * @return a criteria that combines the given query and predicate
+	 */
+	public static <E> Criteria<E> of(@NonNull final QueryBuilder query, @NonNull final Predicate<? super E> predicate) {
+		return new Criteria<>(predicate, query);
+	}
+
+	/**
+	 * A field of the elements of an {@code Index}, from which criteria can be built.
+	 *
+	 * @param <E>
+	 *            the type of elements the field belongs to
+	 * @param <V>
+	 *            the type of values of the field
+	 */
+	@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+	public static final class Field<E, V extends Comparable<? super V>> {
+
+		@Getter
+		@NonNull
+		private final String name;
+
+		@NonNull
+		private final Function<? super E, ? extends V> getter;
+
+		public Criteria<E> eq(@NonNull final V value) {
+			return new Criteria<>(element -> value.equals(getter.apply(element)),
+					QueryBuilders.termQuery(name, value));
+		}
+
+		public Criteria<E> exists() {
+			return new Criteria<>(element -> getter.apply(element) != null, QueryBuilders.existsQuery(name));
+		}
+
+		public Criteria<E> gt(@NonNull final V value) {
+			return range(value, comparison -> comparison > 0, QueryBuilders.rangeQuery(name).gt(value));
+		}
+
+		public Criteria<E> gte(@NonNull final V value) {
+			return range(value, comparison -> comparison >= 0, QueryBuilders.rangeQuery(name).gte(value));
+		}
+
+		public Criteria<E> in(@NonNull final Collection<? extends V> values) {
+			return new Criteria<>(element -> values.contains(getter.apply(element)),
+					QueryBuilders.termsQuery(name, values));
+		}
+
+		public Criteria<E> lt(@NonNull final V value) {
+			return range(value, comparison -> comparison < 0, QueryBuilders.rangeQuery(name).lt(value));
+		}
+
+		public Criteria<E> lte(@NonNull final V value) {
+			return range(value, comparison -> comparison <= 0, QueryBuilders.rangeQuery(name).lte(value));
+		}
+
+		private Criteria<E> range(@NonNull final V value, @NonNull final IntPredicate comparison,
+				@NonNull final QueryBuilder query) {
+			// Missing values never match a range query
+			return new Criteria<>(element -> {
+				final V fieldValue = getter.apply(element);
+				return fieldValue != null && comparison.test(fieldValue.compareTo(value));
+			}, query);
+		}
+
+	}
+
+}
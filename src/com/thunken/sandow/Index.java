@@ -2,43 +2,70 @@ package com.thunken.sandow;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.analyze.AnalyzeRequestBuilder;
 import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse.AnalyzeToken;
 import org.elasticsearch.action.admin.indices.exists.indices.IndicesExistsRequestBuilder;
 import org.elasticsearch.action.admin.indices.flush.FlushRequestBuilder;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteRequestBuilder;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.get.GetField;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.Scroll;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.sort.FieldSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 
+import com.thunken.sandow.filter.BloomFilter;
+import com.thunken.sandow.snapshot.SnapshotExporter;
+import com.thunken.sandow.snapshot.SnapshotImporter;
+import com.thunken.sandow.spliterator.ChangeFeedSpliterator;
 import com.thunken.sandow.spliterator.PaginatingSearchHitSpliterator;
 import com.thunken.sandow.spliterator.ScrollingSearchHitSpliterator;
 import com.thunken.sandow.spliterator.SearchAfterSearchHitSpliterator;
@@ -120,11 +147,46 @@ public interface Index<E, C extends Client> extends Collection<E> {
 
 	@Override
 	default boolean contains(@NonNull final Object object) {
-		return contains(getId(getElementClass().cast(object)));
+		final E element = getElementClass().cast(object);
+		return contains(getId(element), getRouting(element));
 	}
 
+	/**
+	 * Returns {@code true} if this collection contains an element with the given ID.
+	 *
+	 * @implSpec If this collection has an {@linkplain Index#getIdFilter() ID filter}, the default implementation
+	 *           returns {@code false} without a request to the cluster when the filter rules the ID out.
+	 *
+	 * @param elementId
+	 *            the unique ID of the element whose presence in this collection is to be tested
+	 * @return {@code true} if this collection contains an element with the given ID
+	 */
 	default boolean contains(@NonNull final String elementId) {
-		return prepareGet(elementId).setFetchSource(false).get().isExists();
+		return contains(elementId, getRouting(elementId));
+	}
+
+	/**
+	 * Returns {@code true} if this collection contains an element with the given ID and routing value.
+	 *
+	 * @implSpec If this collection has an {@linkplain Index#getIdFilter() ID filter}, the default implementation
+	 *           returns {@code false} without a request to the cluster when the filter rules the ID out.
+	 *
+	 * @param elementId
+	 *            the unique ID of the element whose presence in this collection is to be tested
+	 * @param routing
+	 *            the custom routing value of the element, or {@code null} to use the default routing
+	 * @return {@code true} if this collection contains an element with the given ID and routing value
+	 */
+	default boolean contains(@NonNull final String elementId, @Nullable final String routing) {
+		final Optional<BloomFilter> idFilter = getIdFilter();
+		if (idFilter.isPresent() && !idFilter.get().mightContain(elementId)) {
+			return false;
+		}
+		final boolean exists = prepareGet(elementId, routing).setFetchSource(false).get().isExists();
+		if (!exists) {
+			idFilter.ifPresent(BloomFilter::recordFalsePositive);
+		}
+		return exists;
 	}
 
 	@Override
@@ -148,8 +210,107 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		return prepareSearch().setQuery(queryBuilder).setSize(0).get().getHits().getTotalHits();
 	}
 
+	/**
+	 * Execute a query against the shard(s) that the given routing value resolves to, and get the number of matches
+	 * for that query.
+	 *
+	 * @param queryBuilder
+	 *            the query to execute
+	 * @param routing
+	 *            the routing value of the elements to search
+	 * @return the number of matches for that query, among the elements with the given routing value
+	 */
+	default long count(final QueryBuilder queryBuilder, @NonNull final String routing) {
+		return prepareSearch().setQuery(queryBuilder).setRouting(routing).setSize(0).get().getHits().getTotalHits();
+	}
+
+	/**
+	 * Execute several queries in a single multi search request and get the number of matches for each query.
+	 *
+	 * @param queryBuilders
+	 *            the queries to execute
+	 * @return the number of matches for each query, in the order of the given queries
+	 */
+	default List<Long> countAll(@NonNull final List<? extends QueryBuilder> queryBuilders) {
+		return multiSearch(queryBuilders.stream().map(queryBuilder -> prepareSearch().setQuery(queryBuilder).setSize(0))
+				.collect(Collectors.toList())).stream().map(SearchResponse::getHits).map(SearchHits::getTotalHits)
+						.collect(Collectors.toList());
+	}
+
+	/**
+	 * Get the number of elements that match the given criteria, without retrieving them.
+	 *
+	 * @param criteria
+	 *            the criteria to match
+	 * @return the number of elements in this collection that match the given criteria
+	 */
+	default long countMatching(@NonNull final Criteria<? super E> criteria) {
+		return count(criteria.getQuery());
+	}
+
+	/**
+	 * Count the elements that match a query, grouped by the distinct values of a field, using a {@code terms}
+	 * aggregation.
+	 *
+	 * @param fieldName
+	 *            the name of the field to group by
+	 * @param queryBuilder
+	 *            the query to execute
+	 * @param size
+	 *            the maximum number of distinct values to return
+	 * @return the number of matches for each of the {@code size} most frequent values of the field, by decreasing
+	 *         number of matches
+	 */
+	default Map<Object, Long> countBy(@NonNull final String fieldName, final QueryBuilder queryBuilder,
+			final int size) {
+		final Terms terms = prepareSearch().setQuery(queryBuilder).setSize(0)
+				.addAggregation(AggregationBuilders.terms(fieldName).field(fieldName).size(size)).get()
+				.getAggregations().get(fieldName);
+		final Map<Object, Long> counts = new LinkedHashMap<>();
+		for (final Terms.Bucket bucket : terms.getBuckets()) {
+			counts.put(bucket.getKey(), bucket.getDocCount());
+		}
+		return counts;
+	}
+
+	default Map<Object, Long> countBy(@NonNull final String fieldName, final int size) {
+		return countBy(fieldName, null, size);
+	}
+
+	/**
+	 * Build a Bloom filter of the IDs of the elements in this collection, sized for the given number of elements.
+	 *
+	 * <p>
+	 * The filter is created {@linkplain BloomFilter#createIncomplete incomplete} and handed to {@code installer},
+	 * which must make it the return value of {@link Index#getIdFilter()}, before the IDs of existing elements are
+	 * retrieved: the IDs of elements added while the filter is being built are put into it, and it rules out no ID
+	 * until it is complete. Index requests built before the filter is installed must have completed by then.
+	 *
+	 * @param expectedElements
+	 *            the number of elements this collection is expected to hold over the lifetime of the filter
+	 * @param falsePositiveProbability
+	 *            the desired false positive probability of the filter
+	 * @param installer
+	 *            a callback that installs the filter on this collection
+	 * @return a complete Bloom filter of the IDs of the elements in this collection
+	 */
+	default BloomFilter buildIdFilter(final long expectedElements, final double falsePositiveProbability,
+			@NonNull final Consumer<? super BloomFilter> installer) {
+		final BloomFilter idFilter = BloomFilter.createIncomplete(expectedElements, falsePositiveProbability);
+		installer.accept(idFilter);
+		try (final Stream<String> elementIds = streamIds()) {
+			idFilter.putAll(elementIds);
+		}
+		idFilter.complete();
+		return idFilter;
+	}
+
 	default DeleteRequest deleteRequest(@NonNull final String elementId) {
-		return new DeleteRequest(getName(), getType(), elementId);
+		return deleteRequest(elementId, getRouting(elementId));
+	}
+
+	default DeleteRequest deleteRequest(@NonNull final String elementId, @Nullable final String routing) {
+		return new DeleteRequest(getName(), getType(), elementId).routing(routing);
 	}
 
 	E deserialize(@NonNull final byte[] bytes) throws IOException;
@@ -183,10 +344,23 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	}
 
 	default Optional<E> get(@NonNull final String elementId) {
-		final GetResponse response = prepareGet(elementId).get();
+		return get(elementId, getRouting(elementId));
+	}
+
+	default Optional<E> get(@NonNull final String elementId, @Nullable final String routing) {
+		final GetResponse response = prepareGet(elementId, routing).get();
 		return response.isExists() ? deserializeOrEmpty(response.getSourceAsBytes()) : Optional.empty();
 	}
 
+	/**
+	 * Return the maximum number of actions of the bulk requests sent by this collection.
+	 *
+	 * @return the maximum number of actions per bulk request
+	 */
+	default int getBulkSize() {
+		return 1000;
+	}
+
 	/**
 	 * Return the client used to perform actions against the cluster.
 	 *
@@ -202,7 +376,12 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	Class<E> getElementClass();
 
 	default Optional<GetField> getField(@NonNull final String elementId, @NonNull final String fieldName) {
-		final GetResponse response = prepareGet(elementId).setFetchSource(fieldName, null).get();
+		return getField(elementId, fieldName, getRouting(elementId));
+	}
+
+	default Optional<GetField> getField(@NonNull final String elementId, @NonNull final String fieldName,
+			@Nullable final String routing) {
+		final GetResponse response = prepareGet(elementId, routing).setFetchSource(fieldName, null).get();
 		return response.isExists() ? Optional.ofNullable(response.getField(fieldName)) : Optional.empty();
 	}
 
@@ -224,16 +403,117 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		return getType();
 	}
 
+	/**
+	 * Return the Bloom filter of the IDs of the elements in this collection, if any, used to answer
+	 * {@link Index#contains(String)} locally for IDs that are definitely not part of this collection. The IDs of
+	 * elements added to this collection through {@link Index#indexRequest} and {@link Index#prepareIndex} are put into
+	 * the filter.
+	 *
+	 * <p>
+	 * The filter must hold the ID of every element that may be part of this collection: it must be built from the
+	 * existing elements (see {@link Index#buildIdFilter(long, double, Consumer)}), and elements must not be added to
+	 * the underlying index by other means while the filter is in use. For the same reason, IDs auto-generated by
+	 * Elasticsearch are not supported: while this method returns a filter, {@link Index#prepareIndex()} and
+	 * {@link Index#indexRequest(Object, String)} with a {@code null} ID throw an {@code IllegalStateException}.
+	 *
+	 * @implSpec The default implementation returns an empty {@code Optional}.
+	 *
+	 * @return the Bloom filter of the IDs of the elements in this collection, if any
+	 */
+	default Optional<BloomFilter> getIdFilter() {
+		return Optional.empty();
+	}
+
+	/**
+	 * Return the maximum number of searches of a multi search request that may be executed concurrently by the
+	 * cluster.
+	 *
+	 * @return the maximum number of concurrent searches per multi search request
+	 */
+	default int getMaxConcurrentSearchRequests() {
+		return 4;
+	}
+
+	/**
+	 * Return the name of the field that records when elements were last modified in Elasticsearch, typically a
+	 * timestamp or a sequence number.
+	 *
+	 * @implSpec The default implementation returns an empty {@code Optional}, in which case change feeds are not
+	 *           supported.
+	 *
+	 * @return the name of the modification field of this collection's elements, if any
+	 *
+	 * @see Index#prepareChangeFeedSpliterator()
+	 */
+	default Optional<String> getModificationField() {
+		return Optional.empty();
+	}
+
 	default int getPageSize() {
 		return 10;
 	}
 
+	/**
+	 * Return the custom routing value of the given element, used to route index, get and delete requests that know
+	 * the element itself, such as {@link Index#add}, {@link Index#contains(Object)} and {@link Index#remove(Object)}.
+	 *
+	 * @implSpec The default implementation returns the routing value of the element's ID. Implementations that route
+	 *           elements by a value that cannot be derived from their ID (a tenant field, for instance) only need to
+	 *           override this method, but must then use the overloads of {@code contains}, {@code get},
+	 *           {@code getField}, {@code getSize}, {@code getVersion} and {@code remove} that take a routing value
+	 *           instead of those that only take an ID.
+	 *
+	 * @param element
+	 *            an object of type {@code <E>}, that may or may not be part of this collection
+	 * @return the custom routing value of the given element, or {@code null} to use the default routing
+	 */
+	@Nullable
+	default String getRouting(@NonNull final E element) {
+		return getRouting(getId(element));
+	}
+
+	/**
+	 * Return the custom routing value of the element with the given ID, used to route get, index and delete requests
+	 * to a single shard.
+	 *
+	 * @implSpec The default implementation returns {@code null}, in which case elements are routed by ID.
+	 *
+	 * @param elementId
+	 *            the unique ID of an element, that may or may not be part of this collection
+	 * @return the custom routing value of the element, or {@code null} to use the default routing
+	 */
+	@Nullable
+	default String getRouting(@NonNull final String elementId) {
+		return null;
+	}
+
+	/**
+	 * Return the routing value of the element behind the given search hit.
+	 *
+	 * @implSpec The default implementation returns the {@code _routing} field of the search hit if present, and the
+	 *           routing value of the hit's ID otherwise.
+	 *
+	 * @param searchHit
+	 *            a search hit for an element of this collection
+	 * @return the custom routing value of the element, or {@code null} to use the default routing
+	 */
+	@Nullable
+	default String getRouting(@NonNull final SearchHit searchHit) {
+		final SearchHitField routing = searchHit.field(RoutingFieldMapper.NAME);
+		return routing != null && routing.getValue() != null ? routing.<Object>getValue().toString()
+				: getRouting(searchHit.getId());
+	}
+
 	default Scroll getScroll() {
 		return new Scroll(new TimeValue(1L, TimeUnit.MINUTES));
 	}
 
 	default Optional<ByteSizeValue> getSize(@NonNull final String elementId) {
-		return getField(elementId, "_size").map(GetField::getValue).map(Object::toString).map(Long::parseLong)
+		return getSize(elementId, getRouting(elementId));
+	}
+
+	default Optional<ByteSizeValue> getSize(@NonNull final String elementId, @Nullable final String routing) {
+		return getField(elementId, "_size", routing).map(GetField::getValue).map(Object::toString).map(Long::parseLong)
 				.map(ByteSizeValue::new);
 	}
 
@@ -249,8 +529,32 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		return getElementClass().getSimpleName().toLowerCase(Locale.ROOT);
 	}
 
+	/**
+	 * Get the distinct values of a field among the elements that match a query, using a {@code terms} aggregation.
+	 *
+	 * @param fieldName
+	 *            the name of the field
+	 * @param queryBuilder
+	 *            the query to execute
+	 * @param size
+	 *            the maximum number of distinct values to return
+	 * @return the {@code size} most frequent values of the field, by decreasing number of matches
+	 */
+	default Set<Object> getDistinctValues(@NonNull final String fieldName, final QueryBuilder queryBuilder,
+			final int size) {
+		return countBy(fieldName, queryBuilder, size).keySet();
+	}
+
+	default Set<Object> getDistinctValues(@NonNull final String fieldName, final int size) {
+		return getDistinctValues(fieldName, null, size);
+	}
+
 	default OptionalLong getVersion(@NonNull final String elementId) {
-		return getField(elementId, "_version").map(GetField::getValue).map(Object::toString).map(Long::parseLong)
+		return getVersion(elementId, getRouting(elementId));
+	}
+
+	default OptionalLong getVersion(@NonNull final String elementId, @Nullable final String routing) {
+		return getField(elementId, "_version", routing).map(GetField::getValue).map(Object::toString).map(Long::parseLong)
 				.map(OptionalLong::of).orElse(OptionalLong.empty());
 	}
 
@@ -262,17 +566,36 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	XContentType getXContentType();
 
 	default IndexRequest indexRequest(@NonNull final E element) {
-		return indexRequest(element, getId(element));
+		return indexRequest(element, getId(element)).routing(getRouting(element));
 	}
 
-	default IndexRequest indexRequest(@NonNull final E element, final String elementId) {
+	/**
+	 * Create an index request for the given element under the given ID. Like {@link Index#prepareIndex(String)}, the
+	 * request is routed by the routing value of the given ID, or by the routing value of the element if the ID is
+	 * {@code null}.
+	 *
+	 * @param element
+	 *            the element to index
+	 * @param elementId
+	 *            the unique ID of the element, or {@code null} to let Elasticsearch generate one
+	 * @return an index request for the given element
+	 */
+	default IndexRequest indexRequest(@NonNull final E element, @Nullable final String elementId) {
 		final byte[] bytes;
 		try {
 			bytes = serialize(element);
 		} catch (final IOException e) {
 			throw new IllegalArgumentException(e);
 		}
-		return new IndexRequest(getName(), getType(), elementId).source(bytes, getXContentType());
+		getIdFilter().ifPresent(idFilter -> {
+			if (elementId == null) {
+				throw new IllegalStateException(getName() + ": auto-generated IDs are not supported with an ID filter");
+			}
+			idFilter.put(elementId);
+		});
+		return new IndexRequest(getName(), getType(), elementId)
+				.routing(elementId == null ? getRouting(element) : getRouting(elementId))
+				.source(bytes, getXContentType());
 	}
 
 	@Override
@@ -285,6 +608,33 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		return stream().iterator();
 	}
 
+	/**
+	 * Execute several search requests in a single multi search request, with at most
+	 * {@link Index#getMaxConcurrentSearchRequests()} of them executed concurrently by the cluster.
+	 *
+	 * @param searchRequests
+	 *            the search requests to execute
+	 * @return the response to each search request, in the order of the given search requests
+	 * @throws ElasticsearchException
+	 *             if any of the search requests failed
+	 */
+	default List<SearchResponse> multiSearch(@NonNull final List<SearchRequestBuilder> searchRequests) {
+		if (searchRequests.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final MultiSearchRequestBuilder multiSearchRequest = prepareMultiSearch();
+		searchRequests.forEach(multiSearchRequest::add);
+		final List<SearchResponse> searchResponses = new ArrayList<>(searchRequests.size());
+		for (final MultiSearchResponse.Item item : multiSearchRequest.get().getResponses()) {
+			if (item.isFailure()) {
+				throw item.getFailure() instanceof ElasticsearchException ? (ElasticsearchException) item.getFailure()
+						: new ElasticsearchException(item.getFailureMessage(), item.getFailure());
+			}
+			searchResponses.add(item.getResponse());
+		}
+		return searchResponses;
+	}
+
 	@Override
 	default Stream<E> parallelStream() {
 		return stream();
@@ -295,7 +645,11 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	}
 
 	default DeleteRequestBuilder prepareDelete(@NonNull final String elementId) {
-		return getClient().prepareDelete(getName(), getType(), elementId);
+		return prepareDelete(elementId, getRouting(elementId));
+	}
+
+	default DeleteRequestBuilder prepareDelete(@NonNull final String elementId, @Nullable final String routing) {
+		return getClient().prepareDelete(getName(), getType(), elementId).setRouting(routing);
 	}
 
 	default IndicesExistsRequestBuilder prepareExists() {
@@ -307,15 +661,23 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	}
 
 	default GetRequestBuilder prepareGet(@NonNull final String elementId) {
-		return getClient().prepareGet(getName(), getType(), elementId).setFetchSource(true);
+		return prepareGet(elementId, getRouting(elementId));
+	}
+
+	default GetRequestBuilder prepareGet(@NonNull final String elementId, @Nullable final String routing) {
+		return getClient().prepareGet(getName(), getType(), elementId).setRouting(routing).setFetchSource(true);
 	}
 
 	default IndexRequestBuilder prepareIndex() {
+		if (getIdFilter().isPresent()) {
+			throw new IllegalStateException(getName() + ": auto-generated IDs are not supported with an ID filter");
+		}
 		return getClient().prepareIndex(getName(), getType());
 	}
 
 	default IndexRequestBuilder prepareIndex(@NonNull final String elementId) {
-		return getClient().prepareIndex(getName(), getType(), elementId);
+		getIdFilter().ifPresent(idFilter -> idFilter.put(elementId));
+		return getClient().prepareIndex(getName(), getType(), elementId).setRouting(getRouting(elementId));
 	}
 
 	default IndexRequestBuilder prepareIndex(@NonNull final E element) {
@@ -325,7 +687,18 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		} catch (final IOException e) {
 			throw new IllegalArgumentException(e);
 		}
-		return prepareIndex(getId(element)).setSource(bytes, getXContentType());
+		return prepareIndex(getId(element)).setRouting(getRouting(element)).setSource(bytes, getXContentType());
+	}
+
+	default ChangeFeedSpliterator.ChangeFeedSpliteratorBuilder prepareChangeFeedSpliterator() {
+		return ChangeFeedSpliterator.builder().searchRequest(this::prepareSearch)
+				.field(getModificationField().orElseThrow(
+						() -> new UnsupportedOperationException(getName() + " has no modification field")))
+				.size(getPageSize());
+	}
+
+	default MultiSearchRequestBuilder prepareMultiSearch() {
+		return getClient().prepareMultiSearch().setMaxConcurrentSearchRequests(getMaxConcurrentSearchRequests());
 	}
 
 	default PaginatingSearchHitSpliterator.PaginatingSearchHitSpliteratorBuilder preparePaginatingSpliterator() {
@@ -353,18 +726,31 @@ public interface Index<E, C extends Client> extends Collection<E> {
 				.setSize(getPageSize());
 	}
 
+	default SnapshotExporter.SnapshotExporterBuilder prepareSnapshotExporter(@NonNull final Path directory) {
+		return SnapshotExporter.builder().index(this).directory(directory);
+	}
+
+	default SnapshotImporter.SnapshotImporterBuilder prepareSnapshotImporter(@NonNull final Path directory) {
+		return SnapshotImporter.builder().index(this).directory(directory);
+	}
+
 	default void refresh() {
 		prepareRefresh().get();
 	}
 
 	@Override
 	default boolean remove(@NonNull final Object object) {
-		return remove(getId(getElementClass().cast(object)));
+		final E element = getElementClass().cast(object);
+		return remove(getId(element), getRouting(element));
 	}
 
 	default boolean remove(@NonNull final String elementId) {
-		if (contains(elementId)) {
-			prepareDelete(elementId).get();
+		return remove(elementId, getRouting(elementId));
+	}
+
+	default boolean remove(@NonNull final String elementId, @Nullable final String routing) {
+		if (contains(elementId, routing)) {
+			prepareDelete(elementId, routing).get();
 			return true;
 		}
 		return false;
@@ -381,14 +767,81 @@ public interface Index<E, C extends Client> extends Collection<E> {
 		return modified;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @implSpec If the given filter is a {@link Criteria}, the default implementation removes elements with
+	 *           {@link Index#removeIf(QueryBuilder)}, and never retrieves them.
+	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	default boolean removeIf(@NonNull final Predicate<? super E> filter) {
+		if (filter instanceof Criteria) {
+			return removeIf(((Criteria<? super E>) filter).getQuery());
+		}
 		return stream().filter(filter).map(this::remove).reduce(Boolean::logicalOr).orElse(false);
 	}
 
+	/**
+	 * Removes all of the elements of this collection that match the given query. Only the IDs of matching elements
+	 * are retrieved, and they are deleted with bulk requests of {@link Index#getBulkSize()} deletions.
+	 *
+	 * @param queryBuilder
+	 *            the query to execute
+	 * @return {@code true} if any elements were removed
+	 * @throws IllegalStateException
+	 *             if some elements could not be removed
+	 */
+	default boolean removeIf(@NonNull final QueryBuilder queryBuilder) {
+		final Iterator<SearchHit> searchHits = streamSearchHitsWithoutSource(queryBuilder).iterator();
+		if (!searchHits.hasNext()) {
+			return false;
+		}
+		while (searchHits.hasNext()) {
+			final BulkRequestBuilder bulkRequest = getClient().prepareBulk();
+			while (searchHits.hasNext() && bulkRequest.numberOfActions() < getBulkSize()) {
+				final SearchHit searchHit = searchHits.next();
+				bulkRequest.add(deleteRequest(searchHit.getId(), getRouting(searchHit)));
+			}
+			final BulkResponse bulkResponse = bulkRequest.get();
+			if (bulkResponse.hasFailures()) {
+				throw new IllegalStateException(getName() + ": " + bulkResponse.buildFailureMessage());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @implSpec The default implementation removes the elements whose IDs are not among the IDs of the elements of the
+	 *           given collection with {@link Index#removeIf(QueryBuilder)}, and never retrieves them. The IDs of the
+	 *           given collection are sent in a single {@code ids} query, so the size of the given collection is
+	 *           bounded by the maximum size of a request to the cluster ({@code http.max_content_length}, 100 MB by
+	 *           default).
+	 */
 	@Override
 	default boolean retainAll(@NonNull final Collection<?> collection) {
-		return removeIf(element -> !collection.contains(element));
+		final String[] elementIds = collection.stream().filter(getElementClass()::isInstance)
+				.map(getElementClass()::cast).map(this::getId).toArray(String[]::new);
+		return removeIf(QueryBuilders.boolQuery().mustNot(QueryBuilders.idsQuery(getType()).addIds(elementIds)));
+	}
+
+	/**
+	 * Execute several queries in a single multi search request and get the first page of matches for each query.
+	 *
+	 * @param queryBuilders
+	 *            the queries to execute
+	 * @return the first {@link Index#getPageSize()} elements that match each query, in the order of the given queries
+	 */
+	default List<List<E>> searchAll(@NonNull final List<? extends QueryBuilder> queryBuilders) {
+		return multiSearch(queryBuilders.stream()
+				.map(queryBuilder -> prepareSearch().setQuery(queryBuilder).setSize(getPageSize()))
+				.collect(Collectors.toList())).stream()
+						.map(searchResponse -> Arrays.stream(searchResponse.getHits().getHits())
+								.map(this::deserializeOrEmpty).filter(Optional::isPresent).map(Optional::get)
+								.collect(Collectors.toList()))
+						.collect(Collectors.toList());
 	}
 
 	byte[] serialize(@NonNull final E element) throws IOException;
@@ -405,10 +858,14 @@ public interface Index<E, C extends Client> extends Collection<E> {
 	/**
 	 * Returns the number of elements in this collection as a {@code long}.
 	 *
+	 * @implSpec The default implementation executes a single search request that ignores a missing index, rather than
+	 *           checking that the index exists first.
+	 *
 	 * @return the number of elements in this collection
 	 */
 	default long sizeAsLong() {
-		return exists() ? count(null) : 0L;
+		return prepareSearch().setIndicesOptions(IndicesOptions.lenientExpandOpen()).setSize(0).get().getHits()
+				.getTotalHits();
 	}
 
 	/**
@@ -434,12 +891,55 @@ public interface Index<E, C extends Client> extends Collection<E> {
 				.map(Optional::get);
 	}
 
+	/**
+	 * Returns a sequential {@code Stream} with a subset of this collection as its source, namely the elements that
+	 * match the given search query among the elements with the given routing value. Only the shard(s) that the
+	 * routing value resolves to are searched.
+	 *
+	 * @param queryBuilder
+	 *            the search query to execute
+	 * @param routing
+	 *            the routing value of the elements to search
+	 * @return a sequential {@code Stream} over the elements in this collection that match the given search query,
+	 *         among the elements with the given routing value
+	 */
+	default Stream<E> stream(final QueryBuilder queryBuilder, @NonNull final String routing) {
+		return streamSearchHits(queryBuilder, routing).map(this::deserializeOrEmpty).filter(Optional::isPresent)
+				.map(Optional::get);
+	}
+
+	/**
+	 * Returns a sequential {@code Stream} with a subset of this collection as its source, namely the elements that
+	 * match the given criteria. Elements are filtered by Elasticsearch.
+	 *
+	 * @param criteria
+	 *            the criteria to match
+	 * @return a sequential {@code Stream} over the elements in this collection that match the given criteria
+	 */
+	default Stream<E> streamMatching(@NonNull final Criteria<? super E> criteria) {
+		return stream(criteria.getQuery());
+	}
+
+	/**
+	 * Returns a sequential {@code Stream} over the elements retrieved by a change feed, in the order of their
+	 * modification. The checkpoint of the change feed advances as the stream is consumed.
+	 *
+	 * @param changeFeed
+	 *            the change feed to retrieve elements from
+	 * @return a sequential {@code Stream} over the elements in this collection that were modified after the checkpoint
+	 *         of the change feed
+	 */
+	default Stream<E> streamChanges(@NonNull final ChangeFeedSpliterator changeFeed) {
+		return StreamSupport.stream(changeFeed, false).map(this::deserializeOrEmpty).filter(Optional::isPresent)
+				.map(Optional::get);
+	}
+
 	default Stream<String> streamIds() {
 		return streamIds(null);
 	}
 
 	default Stream<String> streamIds(final QueryBuilder queryBuilder) {
-		return streamSearchHits(queryBuilder).map(SearchHit::getId).filter(Objects::nonNull);
+		return streamSearchHitsWithoutSource(queryBuilder).map(SearchHit::getId).filter(Objects::nonNull);
 	}
 
 	default Stream<SearchHit> streamSearchHits() {
@@ -451,6 +951,26 @@ public interface Index<E, C extends Client> extends Collection<E> {
 				prepareScrollingSpliterator().searchRequest(prepareSearch().setQuery(queryBuilder)).build(), false);
 	}
 
+	/**
+	 * Returns a sequential {@code Stream} over the search hits that match the given query, without their source.
+	 * Since search hits without source are small, each scroll request retrieves {@link Index#getBulkSize()} of them
+	 * rather than {@link Index#getPageSize()}.
+	 *
+	 * @param queryBuilder
+	 *            the search query to execute
+	 * @return a sequential {@code Stream} over the search hits that match the given query, without their source
+	 */
+	default Stream<SearchHit> streamSearchHitsWithoutSource(final QueryBuilder queryBuilder) {
+		return StreamSupport.stream(prepareScrollingSpliterator()
+				.searchRequest(prepareSearch().setQuery(queryBuilder).setFetchSource(false)).size(getBulkSize())
+				.build(), false);
+	}
+
+	default Stream<SearchHit> streamSearchHits(final QueryBuilder queryBuilder, @NonNull final String routing) {
+		return StreamSupport.stream(prepareScrollingSpliterator()
+				.searchRequest(prepareSearch().setQuery(queryBuilder).setRouting(routing)).build(), false);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,292 @@
+package com.thunken.sandow.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+import org.elasticsearch.common.hash.MurmurHash3;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * A thread-safe Bloom filter of element IDs, used to answer membership queries locally when an element is definitely
+ * not part of an index.
+ *
+ * <p>
+ * A Bloom filter has no false negatives as long as every ID that may be part of the index was {@linkplain #put put}
+ * into it: if {@link #mightContain(String)} returns {@code false}, the ID is definitely not part of the index. It may
+ * have false positives, at a rate bounded by the false positive probability it was created with as long as no more
+ * than its expected number of IDs were put into it. IDs cannot be removed from a Bloom filter, so removing elements
+ * from the index does not lower its false positive rate.
+ *
+ * <p>
+ * A filter may be created {@linkplain #createIncomplete incomplete}, so that it can be installed before it is populated
+ * with the IDs of existing elements: IDs added concurrently are put into it, but it answers every query positively
+ * until it is {@linkplain #complete() completed}.
+ *
+ * <p>
+ * Bits are stored in a compact {@code long} array (one bit per bit of the filter), and are set with atomic operations.
+ * IDs are hashed with MurmurHash3, and bit indexes are derived from the two halves of the 128-bit hash with double
+ * hashing.
+ *
+ * @see com.thunken.sandow.Index#getIdFilter()
+ */
+public class BloomFilter {
+
+	private static final long SEED = 0L;
+
+	private final AtomicLong bitCount = new AtomicLong();
+
+	private final AtomicLongArray bits;
+
+	private volatile boolean complete;
+
+	private final AtomicLong falsePositives = new AtomicLong();
+
+	/**
+	 * Return the number of hash functions of this filter.
+	 *
+	 * @return the number of hash functions of this filter
+	 */
+	@Getter
+	private final int hashFunctionCount;
+
+	private final AtomicLong insertions = new AtomicLong();
+
+	private final AtomicLong negatives = new AtomicLong();
+
+	/**
+	 * Return the size of this filter in bits.
+	 *
+	 * @return the size of this filter in bits
+	 */
+	@Getter
+	private final long size;
+
+	private final AtomicLong queries = new AtomicLong();
+
+	private BloomFilter(final long size, final int hashFunctionCount, final boolean complete) {
+		bits = new AtomicLongArray((int) ((size + Long.SIZE - 1) / Long.SIZE));
+		this.size = (long) bits.length() * Long.SIZE;
+		this.hashFunctionCount = hashFunctionCount;
+		this.complete = complete;
+	}
+
+	/**
+	 * Mark this filter as holding the ID of every element that may be part of the index, so that it starts answering
+	 * queries negatively.
+	 */
+	public void complete() {
+		complete = true;
+	}
+
+	/**
+	 * Return the probability that {@link #mightContain(String)} returns {@code true} for an ID that was never put into
+	 * this filter, estimated from the fraction of bits that are set.
+	 *
+	 * @return the expected false positive probability of this filter
+	 */
+	public double getExpectedFalsePositiveProbability() {
+		return Math.pow((double) bitCount.get() / size, hashFunctionCount);
+	}
+
+	/**
+	 * Return the number of false positives reported with {@link #recordFalsePositive()}. Since IDs cannot be removed
+	 * from this filter, lookups of the IDs of removed elements are counted as false positives.
+	 *
+	 * @return the number of false positives reported so far
+	 */
+	public long getFalsePositiveCount() {
+		return falsePositives.get();
+	}
+
+	/**
+	 * Return the fraction of queries answered positively by this filter that were reported as false positives. This
+	 * includes lookups of the IDs of removed elements, so the observed rate may exceed
+	 * {@link #getExpectedFalsePositiveProbability()} on collections with many removals.
+	 *
+	 * @return the observed false positive rate of this filter, or {@code 0} if no query was answered positively
+	 */
+	public double getFalsePositiveRate() {
+		final long positives = queries.get() - negatives.get();
+		return positives > 0L ? (double) falsePositives.get() / positives : 0D;
+	}
+
+	/**
+	 * Return the number of IDs that were put into this filter, including IDs that were put more than once.
+	 *
+	 * @return the number of IDs that were put into this filter
+	 */
+	public long getInsertionCount() {
+		return insertions.get();
+	}
+
+	/**
+	 * Return the number of queries that this filter answered negatively, that is, without a request to the cluster.
+	 *
+	 * @return the number of queries answered negatively by this filter
+	 */
+	public long getNegativeCount() {
+		return negatives.get();
+	}
+
+	/**
+	 * Return the number of queries answered by this filter, positively or negatively.
+	 *
+	 * @return the number of queries answered by this filter
+	 */
+	public long getQueryCount() {
+		return queries.get();
+	}
+
+	/**
+	 * Return the approximate number of bytes used by the bits of this filter.
+	 *
+	 * @return the size of this filter in bytes
+	 */
+	public long getSizeInBytes() {
+		return size / Byte.SIZE;
+	}
+
+	/**
+	 * Return whether this filter holds the ID of every element that may be part of the index.
+	 *
+	 * @return {@code true} if this filter answers queries, {@code false} if it is still being populated
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Return whether the given ID might have been put into this filter. Queries are not counted while this filter is
+	 * incomplete.
+	 *
+	 * @param elementId
+	 *            the ID to look up
+	 * @return {@code false} if the ID was definitely never put into this filter and this filter is complete,
+	 *         {@code true} otherwise
+	 */
+	public boolean mightContain(@NonNull final String elementId) {
+		if (!complete) {
+			return true;
+		}
+		queries.incrementAndGet();
+		final MurmurHash3.Hash128 hash = hash(elementId);
+		for (int i = 0; i < hashFunctionCount; i++) {
+			final long index = index(hash, i);
+			if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0L) {
+				negatives.incrementAndGet();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Put the given ID into this filter.
+	 *
+	 * @param elementId
+	 *            the ID to put
+	 */
+	public void put(@NonNull final String elementId) {
+		insertions.incrementAndGet();
+		final MurmurHash3.Hash128 hash = hash(elementId);
+		for (int i = 0; i < hashFunctionCount; i++) {
+			final long index = index(hash, i);
+			final int word = (int) (index >>> 6);
+			final long mask = 1L << index;
+			long bitsInWord;
+			do {
+				bitsInWord = bits.get(word);
+				if ((bitsInWord & mask) != 0L) {
+					break;
+				}
+			} while (!bits.compareAndSet(word, bitsInWord, bitsInWord | mask));
+			if ((bitsInWord & mask) == 0L) {
+				bitCount.incrementAndGet();
+			}
+		}
+	}
+
+	public void putAll(@NonNull final Stream<String> elementIds) {
+		elementIds.forEach(this::put);
+	}
+
+	/**
+	 * Report that {@link #mightContain(String)} returned {@code true} for an ID that turned out not to be part of the
+	 * index, either because it was never put into this filter or because its element was removed. Reports are ignored
+	 * while this filter is incomplete.
+	 */
+	public void recordFalsePositive() {
+		if (complete) {
+			falsePositives.incrementAndGet();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + "[size=" + size + ", hashFunctionCount=" + hashFunctionCount
+				+ ", complete=" + complete + ", insertions=" + insertions.get() + ", expectedFalsePositiveProbability="
+				+ getExpectedFalsePositiveProbability() + ", falsePositiveRate=" + getFalsePositiveRate() + "]";
+	}
+
+	private long index(@NonNull final MurmurHash3.Hash128 hash, final int i) {
+		return ((hash.h1 + i * hash.h2) & Long.MAX_VALUE) % size;
+	}
+
+	/**
+	 * Create a Bloom filter sized for the given number of IDs and false positive probability.
+	 *
+	 * @param expectedInsertions
+	 *            the number of IDs expected to be put into the filter
+	 * @param falsePositiveProbability
+	 *            the desired false positive probability once the expected number of IDs were put into the filter,
+	 *            strictly between {@code 0} and {@code 1}
+	 * @return a new, empty Bloom filter
+	 */
+	public static BloomFilter create(final long expectedInsertions, final double falsePositiveProbability) {
+		return create(expectedInsertions, falsePositiveProbability, true);
+	}
+
+	/**
+	 * Create an incomplete Bloom filter sized for the given number of IDs and false positive probability. The filter
+	 * answers every query positively until {@link #complete()} is called.
+	 *
+	 * @param expectedInsertions
+	 *            the number of IDs expected to be put into the filter
+	 * @param falsePositiveProbability
+	 *            the desired false positive probability once the expected number of IDs were put into the filter,
+	 *            strictly between {@code 0} and {@code 1}
+	 * @return a new, empty and incomplete Bloom filter
+	 */
+	public static BloomFilter createIncomplete(final long expectedInsertions, final double falsePositiveProbability) {
+		return create(expectedInsertions, falsePositiveProbability, false);
+	}
+
+	private static BloomFilter create(final long expectedInsertions, final double falsePositiveProbability,
+			final boolean complete) {
+		if (expectedInsertions < 0L) {
+			throw new IllegalArgumentException("expectedInsertions must be non-negative, got " + expectedInsertions);
+		}
+		if (!(falsePositiveProbability > 0D && falsePositiveProbability < 1D)) {
+			throw new IllegalArgumentException(
+					"falsePositiveProbability must be strictly between 0 and 1, got " + falsePositiveProbability);
+		}
+		final long n = Math.max(1L, expectedInsertions);
+		final long size = Math.max(Long.SIZE,
+				(long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2))));
+		if (size > (long) Integer.MAX_VALUE * Long.SIZE) {
+			throw new IllegalArgumentException("Bloom filter of " + size + " bits is too large");
+		}
+		final int hashFunctionCount = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+		return new BloomFilter(size, hashFunctionCount, complete);
+	}
+
+	private static MurmurHash3.Hash128 hash(@NonNull final String elementId) {
+		final byte[] bytes = elementId.getBytes(StandardCharsets.UTF_8);
+		return MurmurHash3.hash128(bytes, 0, bytes.length, SEED, new MurmurHash3.Hash128());
+	}
+
+}
@@ -0,0 +1,267 @@
+package com.thunken.sandow.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import com.thunken.sandow.Index;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the documents of an {@code Index} to segmented NDJSON files, without deserializing them.
+ *
+ * <p>
+ * Each document is written as a pair of lines in the format of the
+ * <a href="https://www.elastic.co/guide/en/elasticsearch/reference/current/docs-bulk.html">Bulk API</a>: an
+ * {@code index} action line holding the document's {@code _id} and custom {@code _routing} if any, followed by the
+ * document's {@code _source}. The raw {@code _source} bytes are copied as is when they are single-line JSON, and are
+ * otherwise re-rendered as compact JSON.
+ *
+ * <p>
+ * When more than one slice is requested, the index is traversed with a
+ * <a href="https://www.elastic.co/guide/en/elasticsearch/reference/current/search-request-scroll.html#sliced-scroll">sliced
+ * scroll</a>, and each slice is written by its own thread to its own segment files. Each scroll request retrieves
+ * {@code size} documents, 1000 by default, rather than the page size of the index.
+ *
+ * @see SnapshotImporter
+ */
+@Slf4j
+public class SnapshotExporter {
+
+	public static final String EXTENSION = ".ndjson";
+
+	public static final String COMPRESSED_EXTENSION = EXTENSION + ".gz";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final byte NEWLINE = '\n';
+
+	private final boolean compress;
+
+	@NonNull
+	private final Path directory;
+
+	private final int documentsPerSegment;
+
+	@NonNull
+	private final Index<?, ?> index;
+
+	private final QueryBuilder query;
+
+	private final int size;
+
+	private final int slices;
+
+	@Builder
+	@SuppressWarnings("unused")
+	private SnapshotExporter(@NonNull final Index<?, ?> index, @NonNull final Path directory,
+			@Nullable final QueryBuilder query, @Nullable final Integer slices,
+			@Nullable final Integer documentsPerSegment, @Nullable final Boolean compress,
+			@Nullable final Integer size) {
+		this.index = index;
+		this.directory = directory;
+		this.query = query;
+		this.slices = slices == null ? 1 : slices;
+		this.documentsPerSegment = documentsPerSegment == null ? 100_000 : documentsPerSegment;
+		this.compress = compress != null && compress;
+		this.size = size == null ? 1000 : size;
+		if (this.slices < 1) {
+			throw new IllegalArgumentException("slices must be positive, got " + this.slices);
+		}
+		if (this.documentsPerSegment < 1) {
+			throw new IllegalArgumentException("documentsPerSegment must be positive, got " + this.documentsPerSegment);
+		}
+		if (this.size < 1) {
+			throw new IllegalArgumentException("size must be positive, got " + this.size);
+		}
+	}
+
+	/**
+	 * Write the documents of the index to segment files in the target directory, one slice per thread. Segment files
+	 * of a previous export of the same index in the target directory are deleted first, so that they are not imported
+	 * along with the new ones.
+	 *
+	 * @return the paths of the segment files that were written, ordered by slice then by segment
+	 * @throws IOException
+	 *             if the target directory cannot be created, if previous segment files cannot be deleted, or if a
+	 *             segment file cannot be written
+	 */
+	public List<Path> export() throws IOException {
+		Files.createDirectories(directory);
+		deletePreviousSegments();
+		if (slices == 1) {
+			return exportSlice(0);
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(slices);
+		try {
+			final List<CompletableFuture<List<Path>>> futures = IntStream.range(0, slices)
+					.mapToObj(slice -> CompletableFuture.supplyAsync(() -> {
+						try {
+							return exportSlice(slice);
+						} catch (final IOException e) {
+							throw new UncheckedIOException(e);
+						}
+					}, executor)).collect(Collectors.toList());
+			final List<Path> paths = new ArrayList<>();
+			for (final CompletableFuture<List<Path>> future : futures) {
+				paths.addAll(future.join());
+			}
+			return paths;
+		} catch (final CompletionException e) {
+			if (e.getCause() instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void deletePreviousSegments() throws IOException {
+		final Pattern segment = Pattern.compile(Pattern.quote(index.getName()) + "-\\d+-\\d+"
+				+ Pattern.quote(EXTENSION) + "(?:" + Pattern.quote(".gz") + ")?");
+		final List<Path> paths;
+		try (final Stream<Path> stream = Files.list(directory)) {
+			paths = stream.filter(path -> segment.matcher(path.getFileName().toString()).matches())
+					.collect(Collectors.toList());
+		}
+		for (final Path path : paths) {
+			Files.delete(path);
+		}
+	}
+
+	private List<Path> exportSlice(final int slice) throws IOException {
+		final SearchRequestBuilder searchRequest = index.prepareSearch().setQuery(query)
+				.addSort(FieldSortBuilder.DOC_FIELD_NAME, SortOrder.ASC);
+		if (slices > 1) {
+			searchRequest.slice(new SliceBuilder(slice, slices));
+		}
+		final Spliterator<SearchHit> spliterator = index.prepareScrollingSpliterator().searchRequest(searchRequest)
+				.size(size).build();
+		try (final SegmentWriter writer = new SegmentWriter(slice)) {
+			while (spliterator.tryAdvance(writer::write)) {
+				/* NO OP */
+			}
+			return writer.paths;
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static boolean isSingleLineJson(@NonNull final BytesRef bytes) {
+		for (int i = bytes.offset, end = bytes.offset + bytes.length; i < end; i++) {
+			if (bytes.bytes[i] == NEWLINE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private class SegmentWriter implements AutoCloseable {
+
+		private int documents;
+
+		private OutputStream out;
+
+		private final List<Path> paths = new ArrayList<>();
+
+		private final int slice;
+
+		private SegmentWriter(final int slice) {
+			this.slice = slice;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+
+		private void write(@NonNull final SearchHit searchHit) {
+			final BytesReference source = searchHit.getSourceRef();
+			if (source == null) {
+				log.warn("{}: skipping document [{}] with no _source", index.getName(), searchHit.getId());
+				return;
+			}
+			try {
+				if (out == null || documents == documentsPerSegment) {
+					nextSegment();
+				}
+				writeActionLine(searchHit);
+				final BytesRef bytes = source.toBytesRef();
+				if (XContentFactory.xContentType(source) == XContentType.JSON && isSingleLineJson(bytes)) {
+					out.write(bytes.bytes, bytes.offset, bytes.length);
+				} else {
+					out.write(XContentHelper.convertToJson(source, true, false).getBytes(StandardCharsets.UTF_8));
+				}
+				out.write(NEWLINE);
+				documents++;
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void nextSegment() throws IOException {
+			close();
+			final Path path = directory.resolve(String.format(Locale.ROOT, "%s-%03d-%05d%s", index.getName(), slice,
+					paths.size(), compress ? COMPRESSED_EXTENSION : EXTENSION));
+			final OutputStream file = Files.newOutputStream(path);
+			out = new BufferedOutputStream(compress ? new GZIPOutputStream(file, BUFFER_SIZE) : file, BUFFER_SIZE);
+			paths.add(path);
+			documents = 0;
+		}
+
+		private void writeActionLine(@NonNull final SearchHit searchHit) throws IOException {
+			try (final XContentBuilder builder = XContentFactory.jsonBuilder()) {
+				builder.startObject().startObject("index").field("_id", searchHit.getId());
+				final SearchHitField routing = searchHit.field(RoutingFieldMapper.NAME);
+				if (routing != null && routing.getValue() != null) {
+					builder.field(RoutingFieldMapper.NAME, routing.<Object>getValue().toString());
+				}
+				builder.endObject().endObject();
+				builder.bytes().writeTo(out);
+			}
+			out.write(NEWLINE);
+		}
+
+	}
+
+}
@@ -0,0 +1,274 @@
+package com.thunken.sandow.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import com.thunken.sandow.Index;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Loads NDJSON files written by a {@link SnapshotExporter} into an {@code Index}, without deserializing documents.
+ *
+ * <p>
+ * Uncompressed segment files are read through memory-mapped {@code FileChannel}s, and the bytes of every
+ * {@code documentsPerBulk} documents are handed as is to a bulk request. Compressed segment files cannot be mapped
+ * meaningfully, and are streamed through a {@code GZIPInputStream} instead. At most {@code concurrentRequests} bulk
+ * requests are in flight at any time.
+ *
+ * <p>
+ * Every segment file in the source directory is imported, whichever index or export produced it, so a directory
+ * should only hold the segment files of a single export.
+ *
+ * @see SnapshotExporter
+ */
+@Slf4j
+public class SnapshotImporter {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final int MAP_SIZE = 1 << 26;
+
+	private static final byte NEWLINE = '\n';
+
+	private final int concurrentRequests;
+
+	@NonNull
+	private final Path directory;
+
+	private final int documentsPerBulk;
+
+	@NonNull
+	private final Index<?, ?> index;
+
+	@Builder
+	@SuppressWarnings("unused")
+	private SnapshotImporter(@NonNull final Index<?, ?> index, @NonNull final Path directory,
+			@Nullable final Integer documentsPerBulk, @Nullable final Integer concurrentRequests) {
+		this.index = index;
+		this.directory = directory;
+		this.documentsPerBulk = documentsPerBulk == null ? 1000 : documentsPerBulk;
+		this.concurrentRequests = concurrentRequests == null ? 1 : concurrentRequests;
+		if (this.documentsPerBulk < 1) {
+			throw new IllegalArgumentException("documentsPerBulk must be positive, got " + this.documentsPerBulk);
+		}
+		if (this.concurrentRequests < 1) {
+			throw new IllegalArgumentException("concurrentRequests must be positive, got " + this.concurrentRequests);
+		}
+	}
+
+	/**
+	 * Index the documents of every segment file found in the source directory, and wait for all bulk requests to
+	 * complete.
+	 *
+	 * @return the number of documents that were indexed
+	 * @throws IOException
+	 *             if a segment file cannot be read, or if the current thread is interrupted while waiting for bulk
+	 *             requests to complete
+	 * @throws IllegalStateException
+	 *             if some documents could not be indexed
+	 */
+	public long importAll() throws IOException {
+		final List<Path> paths;
+		try (final Stream<Path> stream = Files.list(directory)) {
+			paths = stream.filter(SnapshotImporter::isSegment).sorted().collect(Collectors.toList());
+		}
+		final BulkSubmitter submitter = new BulkSubmitter();
+		try {
+			for (final Path path : paths) {
+				if (path.getFileName().toString().endsWith(SnapshotExporter.COMPRESSED_EXTENSION)) {
+					importCompressed(path, submitter);
+				} else {
+					importMapped(path, submitter);
+				}
+			}
+		} catch (final IOException | RuntimeException e) {
+			// Wait for in-flight bulk requests, but let the original failure propagate
+			try {
+				submitter.await();
+			} catch (final IOException | RuntimeException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		}
+		submitter.await();
+		return submitter.getIndexed();
+	}
+
+	private void importCompressed(@NonNull final Path path, @NonNull final BulkSubmitter submitter)
+			throws IOException {
+		final int linesPerBulk = 2 * documentsPerBulk;
+		try (final InputStream in = new GZIPInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+			final ByteArrayOutputStream pending = new ByteArrayOutputStream(BUFFER_SIZE);
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			int lines = 0;
+			for (int read; (read = in.read(buffer)) != -1;) {
+				int from = 0;
+				for (int i = 0; i < read; i++) {
+					if (buffer[i] == NEWLINE && ++lines == linesPerBulk) {
+						pending.write(buffer, from, i + 1 - from);
+						submitter.submit(pending.toByteArray());
+						pending.reset();
+						from = i + 1;
+						lines = 0;
+					}
+				}
+				pending.write(buffer, from, read - from);
+			}
+			if (pending.size() > 0) {
+				submitter.submit(pending.toByteArray());
+			}
+		}
+	}
+
+	private void importMapped(@NonNull final Path path, @NonNull final BulkSubmitter submitter) throws IOException {
+		final int linesPerBulk = 2 * documentsPerBulk;
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			final long size = channel.size();
+			long position = 0L;
+			long mapSize = MAP_SIZE;
+			while (position < size) {
+				final int length = (int) Math.min(size - position, mapSize);
+				final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+				int from = 0;
+				int lines = 0;
+				for (int i = 0; i < length; i++) {
+					if (buffer.get(i) == NEWLINE && ++lines == linesPerBulk) {
+						submitter.submit(copy(buffer, from, i + 1));
+						from = i + 1;
+						lines = 0;
+					}
+				}
+				if (position + length == size) {
+					if (from < length) {
+						submitter.submit(copy(buffer, from, length));
+					}
+					position = size;
+				} else if (from == 0) {
+					// A single bulk request does not fit in the mapped region: map a larger one
+					if (mapSize >= Integer.MAX_VALUE) {
+						throw new IOException(path + ": bulk request at offset " + position + " exceeds 2 GiB");
+					}
+					mapSize = Math.min(2L * mapSize, Integer.MAX_VALUE);
+				} else {
+					position += from;
+				}
+			}
+		}
+	}
+
+	private static byte[] copy(@NonNull final MappedByteBuffer buffer, final int from, final int to) {
+		final byte[] bytes = new byte[to - from];
+		final ByteBuffer view = buffer.duplicate();
+		view.position(from);
+		view.get(bytes);
+		return bytes;
+	}
+
+	private static boolean isSegment(@NonNull final Path path) {
+		final String fileName = path.getFileName().toString();
+		return Files.isRegularFile(path) && (fileName.endsWith(SnapshotExporter.EXTENSION)
+				|| fileName.endsWith(SnapshotExporter.COMPRESSED_EXTENSION));
+	}
+
+	private class BulkSubmitter {
+
+		private final AtomicLong failed = new AtomicLong();
+
+		private final AtomicReference<String> firstFailure = new AtomicReference<>();
+
+		private final Semaphore inFlight = new Semaphore(concurrentRequests);
+
+		private final AtomicLong indexed = new AtomicLong();
+
+		private void await() throws IOException {
+			acquire(concurrentRequests);
+			inFlight.release(concurrentRequests);
+			if (failed.get() > 0L) {
+				throw new IllegalStateException(index.getName() + ": " + failed.get()
+						+ " document(s) could not be imported, first failure: " + firstFailure.get());
+			}
+		}
+
+		private long getIndexed() {
+			return indexed.get();
+		}
+
+		private void submit(@NonNull final byte[] bytes) throws IOException {
+			final BulkRequest bulkRequest = new BulkRequest().add(bytes, 0, bytes.length, index.getName(),
+					index.getType(), XContentType.JSON);
+			index.getIdFilter().ifPresent(idFilter -> bulkRequest.requests().stream().map(DocWriteRequest::id)
+					.filter(Objects::nonNull).forEach(idFilter::put));
+			acquire(1);
+			try {
+				index.getClient().bulk(bulkRequest, ActionListener.wrap(this::onResponse, e -> {
+					onFailure(bulkRequest.numberOfActions(), e.toString());
+					inFlight.release();
+				}));
+			} catch (final RuntimeException e) {
+				// The client may fail before the request is sent (no node available, client closed)
+				onFailure(bulkRequest.numberOfActions(), e.toString());
+				inFlight.release();
+				throw e;
+			}
+		}
+
+		private void acquire(final int permits) throws IOException {
+			try {
+				inFlight.acquire(permits);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(index.getName() + ": interrupted while waiting for bulk requests");
+			}
+		}
+
+		private void onFailure(final long documents, @NonNull final String message) {
+			failed.addAndGet(documents);
+			if (firstFailure.compareAndSet(null, message)) {
+				log.warn("{}: bulk import failure: {}", index.getName(), message);
+			}
+		}
+
+		private void onResponse(@NonNull final BulkResponse bulkResponse) {
+			try {
+				for (final BulkItemResponse item : bulkResponse.getItems()) {
+					if (item.isFailed()) {
+						onFailure(1L, item.getFailureMessage());
+					} else {
+						indexed.incrementAndGet();
+					}
+				}
+			} finally {
+				inFlight.release();
+			}
+		}
+
+	}
+
+}
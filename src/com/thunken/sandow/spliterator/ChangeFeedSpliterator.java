@@ -0,0 +1,185 @@
+package com.thunken.sandow.spliterator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.mapper.UidFieldMapper;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.Synchronized;
+
+/**
+ * Specialized implementation of {@code Spliterator} that retrieves the documents of an Elasticsearch index that were
+ * modified after a checkpoint, in a stable order.
+ *
+ * <p>
+ * Documents are sorted by a modification field (typically a timestamp or a sequence number), then by {@code _uid} to
+ * break ties, and are retrieved with successive {@link SearchAfterSearchHitSpliterator}s. The sort values of the last
+ * document consumed are available at any time as an opaque checkpoint token, from which a later change feed can
+ * resume.
+ *
+ * <p>
+ * When a poll interval is given, this spliterator never ends on its own: once it has caught up with the index, it
+ * waits for the poll interval, then searches again from its current checkpoint. It ends when the current thread is
+ * interrupted.
+ *
+ * <p>
+ * Documents that become visible to search with a modification value lower than the current checkpoint are not
+ * retrieved, so the modification field should only ever increase with respect to refreshes of the index. Documents
+ * without a value for the modification field are not part of the change feed.
+ *
+ * @see SearchAfterSearchHitSpliterator
+ * @see SearchHit
+ * @see Spliterator
+ */
+public class ChangeFeedSpliterator implements Spliterator<SearchHit> {
+
+	private volatile Object[] checkpoint;
+
+	private SearchAfterSearchHitSpliterator current;
+
+	@NonNull
+	private final String field;
+
+	private final TimeValue pollInterval;
+
+	private final QueryBuilder query;
+
+	@NonNull
+	private final Supplier<SearchRequestBuilder> searchRequest;
+
+	private final int size;
+
+	@Builder
+	@SuppressWarnings("unused")
+	private ChangeFeedSpliterator(@NonNull final Supplier<SearchRequestBuilder> searchRequest,
+			@NonNull final String field, @Nullable final QueryBuilder query, @Nullable final String checkpoint,
+			@Nullable final Integer size, @Nullable final TimeValue pollInterval) {
+		this.searchRequest = searchRequest;
+		this.field = field;
+		this.query = query;
+		this.checkpoint = checkpoint == null ? null : decode(checkpoint);
+		this.size = SearchHitSpliterator.getSize(size);
+		this.pollInterval = pollInterval;
+	}
+
+	@Override
+	public int characteristics() {
+		return Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED;
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * Return a token for the last document consumed from this change feed, or for the checkpoint this change feed
+	 * started from if no document was consumed yet.
+	 *
+	 * @return a checkpoint token, or {@code null} if this change feed started from the beginning of the index and no
+	 *         document was consumed yet
+	 */
+	public String getCheckpoint() {
+		final Object[] sortValues = checkpoint;
+		return sortValues == null ? null : encode(sortValues);
+	}
+
+	@Override
+	public boolean tryAdvance(@NonNull final Consumer<? super SearchHit> action) {
+		while (true) {
+			if (advance(action)) {
+				return true;
+			}
+			if (pollInterval == null) {
+				return false;
+			}
+			try {
+				Thread.sleep(pollInterval.millis());
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	@Override
+	public Spliterator<SearchHit> trySplit() {
+		return null;
+	}
+
+	@Synchronized
+	private boolean advance(@NonNull final Consumer<? super SearchHit> action) {
+		if (current == null) {
+			current = SearchAfterSearchHitSpliterator.builder().searchRequest(prepareSearch()).size(size)
+					.addTieBreaker(false).build();
+		}
+		if (current.tryAdvance(searchHit -> {
+			checkpoint = searchHit.getSortValues();
+			action.accept(searchHit);
+		})) {
+			return true;
+		}
+		current = null;
+		return false;
+	}
+
+	private SearchRequestBuilder prepareSearch() {
+		final SearchRequestBuilder request = searchRequest.get().setSize(size).addSort(field, SortOrder.ASC)
+				.addSort(UidFieldMapper.NAME, SortOrder.ASC);
+		final Object[] sortValues = checkpoint;
+		final BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+		if (query != null) {
+			boolQuery.must(query);
+		}
+		if (sortValues == null) {
+			// Documents without the field would sort last, and their sort value would stall the checkpoint
+			return request.setQuery(boolQuery.filter(QueryBuilders.existsQuery(field)));
+		}
+		return request.setQuery(boolQuery.filter(QueryBuilders.rangeQuery(field).gte(sortValues[0])))
+				.searchAfter(sortValues);
+	}
+
+	private static Object[] decode(@NonNull final String checkpoint) {
+		final byte[] bytes = Base64.getUrlDecoder().decode(checkpoint);
+		try (final XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+				bytes)) {
+			return parser.list().toArray();
+		} catch (final IOException | RuntimeException e) {
+			throw new IllegalArgumentException("Invalid checkpoint: " + checkpoint, e);
+		}
+	}
+
+	private static String encode(@NonNull final Object[] sortValues) {
+		try (final XContentBuilder builder = XContentFactory.jsonBuilder()) {
+			builder.startArray();
+			for (final Object sortValue : sortValues) {
+				builder.value(sortValue);
+			}
+			builder.endArray();
+			return Base64.getUrlEncoder().withoutPadding()
+					.encodeToString(builder.string().getBytes(StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
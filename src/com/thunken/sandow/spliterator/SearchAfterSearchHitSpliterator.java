@@ -32,8 +32,6 @@ public class SearchAfterSearchHitSpliterator extends SearchHitSpliterator {
 
 	private final int size;
 
-	private Object[] sortValues;
-
 	@Builder
 	private SearchAfterSearchHitSpliterator(@NonNull final SearchRequestBuilder searchRequest,
 			@Nullable final Integer size, @Nullable final Boolean addTieBreaker) {
@@ -46,12 +44,12 @@ public class SearchAfterSearchHitSpliterator extends SearchHitSpliterator {
 
 	@Override
 	protected ListenableActionFuture<SearchResponse> getNextBatch(@NonNull final SearchResponse searchResponse) {
-		return (sortValues == null ? searchRequest : searchRequest.searchAfter(sortValues)).setSize(size).execute();
-	}
-
-	@Override
-	protected void update(@NonNull final SearchHit searchHit) {
-		sortValues = searchHit.getSortValues();
+		// The next batch is requested before any hit of this batch is consumed: search after the last hit of this batch
+		final SearchHit[] searchHits = searchResponse.getHits().getHits();
+		if (searchHits.length == 0) {
+			return null;
+		}
+		return searchRequest.searchAfter(searchHits[searchHits.length - 1].getSortValues()).setSize(size).execute();
 	}
 
 }